@@ -1,9 +1,11 @@
 package org.nekosoft.utils.crawlerdetect;
 
 import org.nekosoft.utils.CrawlerDetect;
+import org.nekosoft.utils.crawlerdetect.metrics.DetectorMetrics;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -26,14 +28,22 @@ import static java.util.regex.Pattern.CASE_INSENSITIVE;
  * detector.setUaExclusions(yourOwnAbstractDataProviderForExclusions);
  * detector.setHeadersToCheck(yourOwnAbstractDataProviderForHeaders);
  * </pre>
+ * Latency instrumentation can be switched on at any time by setting a {@link DetectorMetrics} instance with
+ * {@link #setMetrics(DetectorMetrics)}, and switched off again by setting it to {@code null}.
  */
 public class Detector implements CrawlerDetect {
 
+    // The headers-based methods always delegate to the (overridable) user agent methods. While metrics are enabled,
+    // this marker tells the user agent methods to hand their phase timings back to the headers-based call that is
+    // delegating to them, instead of recording a call of their own.
+    private static final ThreadLocal<DelegatedCall> DELEGATED_CALL = ThreadLocal.withInitial(DelegatedCall::new);
+
     private AbstractDataProvider crawlerPatterns;
     private List<Pattern> crawlerPatternRE;
     private AbstractDataProvider headersToCheck;
     private AbstractDataProvider uaExclusions;
     private List<Pattern> uaExclusionsRE;
+    private volatile DetectorMetrics metrics;
 
     /**
      * Creates an instance of the Detector. In the recommended use of this class, only one instance is needed per JVM,
@@ -105,13 +115,36 @@ public class Detector implements CrawlerDetect {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * The Metrics collect latency histograms and the slowest user agents for the detection calls made on this instance.
+     * They are disabled by default.
+     * @return the {@link DetectorMetrics} this instance reports to, or {@code null} if instrumentation is disabled
+     */
+    public DetectorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics this instance reports to. When {@code null}, no timings are taken at all.
+     * <p>
+     * See {@link #getMetrics()}
+     * @param metrics the {@link DetectorMetrics} to be used by this instance, or {@code null} to disable instrumentation
+     */
+    public void setMetrics(DetectorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public boolean isCrawler(Map<String,String> headers) {
-        String uaString = headersToUAString(headers);
-        return isCrawler(uaString);
+        DetectorMetrics metrics = this.metrics;
+        if (metrics == null) {
+            String uaString = headersToUAString(headers);
+            return isCrawler(uaString);
+        }
+        return timedHeaders(metrics, DetectorMetrics.Operation.IS_CRAWLER_HEADERS, headers, this::isCrawler);
     }
 
     /**
@@ -119,10 +152,12 @@ public class Detector implements CrawlerDetect {
      */
     @Override
     public boolean isCrawler(String userAgent) {
-        String finalUA = prepareUAString(userAgent);
-        return crawlerPatternRE.stream().anyMatch(
-                pattern -> pattern.matcher(finalUA).find()
-        );
+        DetectorMetrics metrics = this.metrics;
+        if (metrics == null) {
+            String finalUA = prepareUAString(userAgent);
+            return matchesCrawler(finalUA);
+        }
+        return timedUserAgent(metrics, DetectorMetrics.Operation.IS_CRAWLER_USER_AGENT, userAgent, this::matchesCrawler);
     }
 
     /**
@@ -130,8 +165,12 @@ public class Detector implements CrawlerDetect {
      */
     @Override
     public String getMatchingCrawler(Map<String,String> headers) {
-        String uaString = headersToUAString(headers);
-        return getMatchingCrawler(uaString);
+        DetectorMetrics metrics = this.metrics;
+        if (metrics == null) {
+            String uaString = headersToUAString(headers);
+            return getMatchingCrawler(uaString);
+        }
+        return timedHeaders(metrics, DetectorMetrics.Operation.GET_MATCHING_CRAWLER_HEADERS, headers, this::getMatchingCrawler);
     }
 
     /**
@@ -139,7 +178,64 @@ public class Detector implements CrawlerDetect {
      */
     @Override
     public String getMatchingCrawler(String userAgent) {
+        DetectorMetrics metrics = this.metrics;
+        if (metrics == null) {
+            String finalUA = prepareUAString(userAgent);
+            return findMatchingCrawler(finalUA);
+        }
+        return timedUserAgent(metrics, DetectorMetrics.Operation.GET_MATCHING_CRAWLER_USER_AGENT, userAgent, this::findMatchingCrawler);
+    }
+
+    private <T> T timedHeaders(DetectorMetrics metrics, DetectorMetrics.Operation operation,
+                               Map<String,String> headers, Function<String,T> delegate) {
+        long start = System.nanoTime();
+        String uaString = headersToUAString(headers);
+        long assembled = System.nanoTime();
+        DelegatedCall call = DELEGATED_CALL.get();
+        boolean wasActive = call.active;
+        call.active = true;
+        call.captured = false;
+        T result;
+        try {
+            result = delegate.apply(uaString);
+        } finally {
+            call.active = wasActive;
+        }
+        long delegated = System.nanoTime() - assembled;
+        if (call.captured) {
+            metrics.record(operation, uaString, assembled - start, call.exclusionStrippingNanos, call.crawlerMatchingNanos);
+        } else {
+            // the user agent method was overridden and did not report its phases, so count it all as matching
+            metrics.record(operation, uaString, assembled - start, 0, delegated);
+        }
+        return result;
+    }
+
+    private <T> T timedUserAgent(DetectorMetrics metrics, DetectorMetrics.Operation operation,
+                                 String userAgent, Function<String,T> matcher) {
+        long start = System.nanoTime();
         String finalUA = prepareUAString(userAgent);
+        long prepared = System.nanoTime();
+        T result = matcher.apply(finalUA);
+        long matched = System.nanoTime();
+        DelegatedCall call = DELEGATED_CALL.get();
+        if (call.active) {
+            call.captured = true;
+            call.exclusionStrippingNanos = prepared - start;
+            call.crawlerMatchingNanos = matched - prepared;
+        } else {
+            metrics.record(operation, userAgent, 0, prepared - start, matched - prepared);
+        }
+        return result;
+    }
+
+    private boolean matchesCrawler(String finalUA) {
+        return crawlerPatternRE.stream().anyMatch(
+                pattern -> pattern.matcher(finalUA).find()
+        );
+    }
+
+    private String findMatchingCrawler(String finalUA) {
         for (Pattern pattern : crawlerPatternRE) {
             Matcher m = pattern.matcher(finalUA);
             if (m.find()) {
@@ -173,4 +269,11 @@ public class Detector implements CrawlerDetect {
         return uaString;
     }
 
-}
+    private static final class DelegatedCall {
+        boolean active;
+        boolean captured;
+        long exclusionStrippingNanos;
+        long crawlerMatchingNanos;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,268 @@
+package org.nekosoft.utils.crawlerdetect.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Opt-in latency instrumentation for {@link org.nekosoft.utils.crawlerdetect.Detector}. When an instance of this class
+ * is set on a detector with {@link org.nekosoft.utils.crawlerdetect.Detector#setMetrics(DetectorMetrics)}, every
+ * detection call records
+ * <ul>
+ * <li>its total latency, split by detection method (see {@link Operation})</li>
+ * <li>the latency of each phase of the detection process (see {@link Phase})</li>
+ * <li>the user agent string and timings of the call, if it is among the slowest observed so far</li>
+ * </ul>
+ * <pre>
+ * DetectorMetrics metrics = new DetectorMetrics();
+ * detector.setMetrics(metrics);
+ * // ...
+ * long p99 = metrics.getOperationLatency(DetectorMetrics.Operation.IS_CRAWLER_HEADERS).getP99();
+ * List&lt;SlowUserAgent> slowest = metrics.getSlowestUserAgents();
+ * </pre>
+ * The same data can be browsed over JMX after calling {@link #registerMBean(String)}.
+ * <p>
+ * Latencies are recorded in lock-free {@link LatencyHistogram}s. The buffer of the slowest user agents is only locked
+ * when a call is slower than all the calls already captured, which becomes increasingly rare as the buffer fills up.
+ * When no metrics are set on the detector, no timing is taken at all.
+ */
+public class DetectorMetrics implements DetectorMetricsMXBean {
+
+    /**
+     * The default number of slowest user agents captured by an instance.
+     */
+    public static final int DEFAULT_SLOWEST_CAPACITY = 16;
+
+    /**
+     * The maximum length of the user agent strings captured by an instance. Longer strings are truncated, so that the
+     * memory used by the buffer of the slowest user agents stays bounded.
+     */
+    public static final int MAX_USER_AGENT_LENGTH = 1024;
+
+    /**
+     * The detection methods of {@link org.nekosoft.utils.CrawlerDetect} that are timed separately.
+     */
+    public enum Operation {
+        /** {@link org.nekosoft.utils.CrawlerDetect#isCrawler(Map)} */
+        IS_CRAWLER_HEADERS(true),
+        /** {@link org.nekosoft.utils.CrawlerDetect#isCrawler(String)} */
+        IS_CRAWLER_USER_AGENT(false),
+        /** {@link org.nekosoft.utils.CrawlerDetect#getMatchingCrawler(Map)} */
+        GET_MATCHING_CRAWLER_HEADERS(true),
+        /** {@link org.nekosoft.utils.CrawlerDetect#getMatchingCrawler(String)} */
+        GET_MATCHING_CRAWLER_USER_AGENT(false);
+
+        private final boolean fromHeaders;
+
+        Operation(boolean fromHeaders) {
+            this.fromHeaders = fromHeaders;
+        }
+
+        /**
+         * Tells whether this detection method assembles the user agent string from the request headers, and therefore
+         * goes through the {@link Phase#HEADER_ASSEMBLY} phase.
+         * @return {@code true} for the methods that take a map of headers, {@code false} otherwise
+         */
+        public boolean isFromHeaders() {
+            return fromHeaders;
+        }
+    }
+
+    /**
+     * The phases of the detection process that are timed separately.
+     */
+    public enum Phase {
+        /** Building the user agent string out of the headers to check (only for the headers-based methods) */
+        HEADER_ASSEMBLY,
+        /** Removing the user agent exclusions from the user agent string */
+        EXCLUSION_STRIPPING,
+        /** Matching the resulting string against the crawler patterns */
+        CRAWLER_MATCHING
+    }
+
+    private final Map<Operation, LatencyHistogram> operationLatencies = new EnumMap<>(Operation.class);
+    private final Map<Phase, LatencyHistogram> phaseLatencies = new EnumMap<>(Phase.class);
+    private final SlowUserAgent[] slowest;
+    private volatile long slowestThreshold;
+    private ObjectName objectName;
+
+    /**
+     * Creates a new instance that captures the {@value #DEFAULT_SLOWEST_CAPACITY} slowest user agents.
+     */
+    public DetectorMetrics() {
+        this(DEFAULT_SLOWEST_CAPACITY);
+    }
+
+    /**
+     * Creates a new instance that captures the given number of slowest user agents.
+     * @param slowestCapacity the number of slowest user agents to capture. If {@code 0}, no user agent is captured and
+     *                        only the latency histograms are recorded.
+     * @throws IllegalArgumentException if the capacity is negative
+     */
+    public DetectorMetrics(int slowestCapacity) {
+        if (slowestCapacity < 0) {
+            throw new IllegalArgumentException("Capacity of slowest user agents cannot be negative");
+        }
+        for (Operation operation : Operation.values()) {
+            operationLatencies.put(operation, new LatencyHistogram());
+        }
+        for (Phase phase : Phase.values()) {
+            phaseLatencies.put(phase, new LatencyHistogram());
+        }
+        this.slowest = new SlowUserAgent[slowestCapacity];
+    }
+
+    /**
+     * Records the timings of a single detection call. This method is called by
+     * {@link org.nekosoft.utils.crawlerdetect.Detector} and is only public so that custom implementations of
+     * {@link org.nekosoft.utils.CrawlerDetect} can report to the same instance.
+     * @param operation the detection method that was called
+     * @param userAgent the user agent string that was tested, before exclusions were stripped
+     * @param headerAssemblyNanos the time spent assembling the user agent string from the headers, ignored if the
+     *                            operation does not take a map of headers
+     * @param exclusionStrippingNanos the time spent removing the user agent exclusions
+     * @param crawlerMatchingNanos the time spent matching against the crawler patterns
+     */
+    public void record(Operation operation, String userAgent, long headerAssemblyNanos,
+                       long exclusionStrippingNanos, long crawlerMatchingNanos) {
+        if (!operation.isFromHeaders()) {
+            headerAssemblyNanos = 0;
+        } else {
+            phaseLatencies.get(Phase.HEADER_ASSEMBLY).record(headerAssemblyNanos);
+        }
+        phaseLatencies.get(Phase.EXCLUSION_STRIPPING).record(exclusionStrippingNanos);
+        phaseLatencies.get(Phase.CRAWLER_MATCHING).record(crawlerMatchingNanos);
+        long totalNanos = headerAssemblyNanos + exclusionStrippingNanos + crawlerMatchingNanos;
+        operationLatencies.get(operation).record(totalNanos);
+        if (slowest.length > 0 && totalNanos > slowestThreshold) {
+            captureSlowest(operation, userAgent, headerAssemblyNanos, exclusionStrippingNanos, crawlerMatchingNanos);
+        }
+    }
+
+    private synchronized void captureSlowest(Operation operation, String userAgent, long headerAssemblyNanos,
+                                             long exclusionStrippingNanos, long crawlerMatchingNanos) {
+        long totalNanos = headerAssemblyNanos + exclusionStrippingNanos + crawlerMatchingNanos;
+        int target = -1;
+        for (int i = 0; i < slowest.length; i++) {
+            if (slowest[i] == null) {
+                target = i;
+                break;
+            }
+            if (slowest[i].getTotalNanos() < totalNanos
+                    && (target < 0 || slowest[i].getTotalNanos() < slowest[target].getTotalNanos())) {
+                target = i;
+            }
+        }
+        if (target < 0) return; // beaten to it by another thread
+        if (userAgent != null && userAgent.length() > MAX_USER_AGENT_LENGTH) {
+            userAgent = userAgent.substring(0, MAX_USER_AGENT_LENGTH);
+        }
+        slowest[target] = new SlowUserAgent(userAgent, operation, headerAssemblyNanos,
+                exclusionStrippingNanos, crawlerMatchingNanos, System.currentTimeMillis());
+        long threshold = Long.MAX_VALUE;
+        for (SlowUserAgent captured : slowest) {
+            if (captured == null) {
+                threshold = 0;
+                break;
+            }
+            threshold = Math.min(threshold, captured.getTotalNanos());
+        }
+        slowestThreshold = threshold;
+    }
+
+    /**
+     * Returns a snapshot of the latency histogram of the given detection method.
+     * @param operation the detection method
+     * @return the latencies recorded so far for the detection method
+     */
+    public LatencySnapshot getOperationLatency(Operation operation) {
+        return operationLatencies.get(operation).getSnapshot();
+    }
+
+    /**
+     * Returns a snapshot of the latency histogram of the given phase of the detection process.
+     * @param phase the phase of the detection process
+     * @return the latencies recorded so far for the phase
+     */
+    public LatencySnapshot getPhaseLatency(Phase phase) {
+        return phaseLatencies.get(phase).getSnapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, LatencySnapshot> getOperationLatencies() {
+        Map<String, LatencySnapshot> result = new LinkedHashMap<>();
+        operationLatencies.forEach((operation, histogram) -> result.put(operation.name(), histogram.getSnapshot()));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, LatencySnapshot> getPhaseLatencies() {
+        Map<String, LatencySnapshot> result = new LinkedHashMap<>();
+        phaseLatencies.forEach((phase, histogram) -> result.put(phase.name(), histogram.getSnapshot()));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized List<SlowUserAgent> getSlowestUserAgents() {
+        List<SlowUserAgent> result = new ArrayList<>(slowest.length);
+        for (SlowUserAgent captured : slowest) {
+            if (captured != null) result.add(captured);
+        }
+        result.sort(Comparator.comparingLong(SlowUserAgent::getTotalNanos).reversed());
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset() {
+        operationLatencies.values().forEach(LatencyHistogram::reset);
+        phaseLatencies.values().forEach(LatencyHistogram::reset);
+        Arrays.fill(slowest, null);
+        slowestThreshold = 0;
+    }
+
+    /**
+     * Registers this instance with the platform MBean server, under the
+     * {@code org.nekosoft.utils.crawlerdetect:type=DetectorMetrics,name=<name>} object name.
+     * @param name a name that distinguishes this instance from others in the same JVM
+     * @return the object name this instance was registered with
+     * @throws JMException if the name is invalid or already in use
+     * @throws IllegalStateException if this instance is already registered
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException("Detector metrics already registered as " + objectName);
+        }
+        ObjectName newName = new ObjectName("org.nekosoft.utils.crawlerdetect:type=DetectorMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        objectName = newName;
+        return newName;
+    }
+
+    /**
+     * Removes this instance from the platform MBean server, if it was registered with {@link #registerMBean(String)}.
+     * @throws JMException if the instance could not be unregistered
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (objectName == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        objectName = null;
+    }
+
+}
@@ -0,0 +1,35 @@
+package org.nekosoft.utils.crawlerdetect.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The JMX management interface of {@link DetectorMetrics}. Register an instance with
+ * {@link DetectorMetrics#registerMBean(String)} to browse it from any JMX console.
+ */
+public interface DetectorMetricsMXBean {
+
+    /**
+     * Returns the latency of each detection method, keyed by the name of its {@link DetectorMetrics.Operation}.
+     * @return a snapshot of the latency histogram of each detection method
+     */
+    Map<String, LatencySnapshot> getOperationLatencies();
+
+    /**
+     * Returns the latency of each phase of the detection process, keyed by the name of its {@link DetectorMetrics.Phase}.
+     * @return a snapshot of the latency histogram of each phase
+     */
+    Map<String, LatencySnapshot> getPhaseLatencies();
+
+    /**
+     * Returns the slowest detection calls captured so far, slowest first.
+     * @return the slowest user agents and their timings
+     */
+    List<SlowUserAgent> getSlowestUserAgents();
+
+    /**
+     * Clears all latency histograms and the slowest user agents captured so far.
+     */
+    void reset();
+
+}
@@ -0,0 +1,122 @@
+package org.nekosoft.utils.crawlerdetect.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram, loosely modelled on HdrHistogram. Values are recorded in nanoseconds into log-linear
+ * buckets: every power-of-two range is split into 32 linear sub-buckets, which keeps the
+ * relative error of any reported value below ~3% over the whole range of a {@code long}, using a fixed amount of memory.
+ * <p>
+ * Recording a value is a handful of atomic increments and never blocks, so the histogram can be shared by all threads
+ * using the same {@link org.nekosoft.utils.crawlerdetect.Detector}. Reading is done with {@link #getSnapshot()}, which
+ * is not atomic with respect to concurrent recordings, but every value is eventually counted exactly once.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+    /**
+     * Creates a new, empty histogram.
+     */
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Records a single latency value. Negative values (which {@link System#nanoTime()} should never produce) are
+     * recorded as zero.
+     * @param nanos the latency to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        // update the summary values first, so that a snapshot never counts a value that they do not reflect yet
+        total.add(nanos);
+        max.accumulate(nanos);
+        min.accumulate(nanos);
+        counts.incrementAndGet(indexOf(nanos));
+    }
+
+    /**
+     * Clears all the values recorded so far. Values recorded concurrently with the reset may or may not survive it.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        max.reset();
+        min.reset();
+    }
+
+    /**
+     * Takes a point-in-time copy of this histogram that can be queried without affecting further recordings.
+     * @return a snapshot of the values recorded so far
+     */
+    public LatencySnapshot getSnapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        int lowestIndex = -1;
+        int highestIndex = -1;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            if (copy[i] > 0) {
+                if (lowestIndex < 0) lowestIndex = i;
+                highestIndex = i;
+            }
+            count += copy[i];
+        }
+        if (count == 0) {
+            return new LatencySnapshot(copy, 0, 0, 0, 0);
+        }
+        // a concurrent reset can leave the summary values out of step with the counts, so fall back on the
+        // boundaries of the non-empty buckets when they disagree
+        long minValue = min.get();
+        if (minValue > highestValueAt(lowestIndex)) {
+            minValue = lowestValueAt(lowestIndex);
+        }
+        long maxValue = max.get();
+        if (maxValue < lowestValueAt(highestIndex)) {
+            maxValue = highestValueAt(highestIndex);
+        }
+        minValue = Math.min(minValue, maxValue);
+        return new LatencySnapshot(copy, count, total.sum(), minValue, maxValue);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> exponent);
+        return SUB_BUCKET_COUNT + (exponent - 1) * SUB_BUCKET_HALF_COUNT + (subBucket - SUB_BUCKET_HALF_COUNT);
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return subBucket << exponent;
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        long lowest = lowestValueAt(index);
+        long width = 1L << ((index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1);
+        // the very last bucket would overflow past Long.MAX_VALUE
+        return lowest > Long.MAX_VALUE - width ? Long.MAX_VALUE : lowest + width - 1;
+    }
+
+}
@@ -0,0 +1,171 @@
+package org.nekosoft.utils.crawlerdetect.metrics;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * An immutable, point-in-time copy of a {@link LatencyHistogram}. All values are expressed in nanoseconds.
+ * <p>
+ * The getters of this class are also exposed over JMX as the attributes of the composite values returned by
+ * {@link DetectorMetricsMXBean}, and {@link #from(CompositeData)} rebuilds a snapshot from them for MXBean proxies.
+ */
+public class LatencySnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long total;
+    private final long min;
+    private final long max;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+
+    LatencySnapshot(long[] counts, long count, long total, long min, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.total = total;
+        this.min = min;
+        this.max = max;
+        this.p50 = valueAtPercentile(50);
+        this.p90 = valueAtPercentile(90);
+        this.p99 = valueAtPercentile(99);
+        this.p999 = valueAtPercentile(99.9);
+    }
+
+    private LatencySnapshot(long count, long total, long min, long max, long p50, long p90, long p99, long p999) {
+        this.counts = null;
+        this.count = count;
+        this.total = total;
+        this.min = min;
+        this.max = max;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+    }
+
+    /**
+     * Rebuilds a snapshot from the open data that JMX exports for it. This method is used by MXBean proxies of
+     * {@link DetectorMetricsMXBean}. The histogram buckets are not part of the exported data, so the rebuilt snapshot
+     * only knows the percentiles that have a getter in this class (see {@link #getValueAtPercentile(double)}).
+     * @param data the composite data exported by JMX for a snapshot
+     * @return a snapshot with the same values as the exported one
+     */
+    public static LatencySnapshot from(CompositeData data) {
+        return new LatencySnapshot(
+                (Long) data.get("count"), (Long) data.get("total"), (Long) data.get("min"), (Long) data.get("max"),
+                (Long) data.get("p50"), (Long) data.get("p90"), (Long) data.get("p99"), (Long) data.get("p999")
+        );
+    }
+
+    /**
+     * Returns the number of values recorded in this snapshot.
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the sum of all the values recorded in this snapshot.
+     * @return the total recorded time, in nanoseconds
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the smallest value recorded in this snapshot, or {@code 0} if it is empty.
+     * @return the minimum recorded value, in nanoseconds
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value recorded in this snapshot, or {@code 0} if it is empty.
+     * @return the maximum recorded value, in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the arithmetic mean of the values recorded in this snapshot, or {@code 0} if it is empty.
+     * @return the mean recorded value, in nanoseconds
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * Returns the median of the values recorded in this snapshot.
+     * @return the 50th percentile, in nanoseconds
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * Returns the 90th percentile of the values recorded in this snapshot.
+     * @return the 90th percentile, in nanoseconds
+     */
+    public long getP90() {
+        return p90;
+    }
+
+    /**
+     * Returns the 99th percentile of the values recorded in this snapshot.
+     * @return the 99th percentile, in nanoseconds
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * Returns the 99.9th percentile of the values recorded in this snapshot.
+     * @return the 99.9th percentile, in nanoseconds
+     */
+    public long getP999() {
+        return p999;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall. The result is the highest value
+     * that falls in the same histogram bucket as the exact percentile, capped by {@link #getMax()}, so it is never an
+     * underestimate by more than the precision of {@link LatencyHistogram}.
+     * @param percentile the percentile to compute, between {@code 0} and {@code 100}
+     * @return the value at the given percentile, in nanoseconds, or {@code 0} if this snapshot is empty
+     * @throws IllegalArgumentException if the percentile is outside the {@code [0, 100]} range
+     * @throws UnsupportedOperationException if this snapshot was rebuilt from JMX data with {@link #from(CompositeData)}
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percentile);
+        }
+        if (counts == null) {
+            throw new UnsupportedOperationException("Histogram buckets are not available in snapshots rebuilt from JMX data");
+        }
+        return valueAtPercentile(percentile);
+    }
+
+    private long valueAtPercentile(double percentile) {
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(LatencyHistogram.highestValueAt(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySnapshot{count=" + count + ", min=" + min + ", p50=" + p50 + ", p90=" + p90
+                + ", p99=" + p99 + ", p999=" + p999 + ", max=" + max + "}";
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.nekosoft.utils.crawlerdetect.metrics;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * A single detection call captured by {@link DetectorMetrics} because it was among the slowest observed so far.
+ * All timings are expressed in nanoseconds.
+ * <p>
+ * The getters of this class are also exposed over JMX as the attributes of the composite values returned by
+ * {@link DetectorMetricsMXBean}, and {@link #from(CompositeData)} rebuilds an instance from them for MXBean proxies.
+ */
+public class SlowUserAgent {
+
+    private final String userAgent;
+    private final DetectorMetrics.Operation operation;
+    private final long totalNanos;
+    private final long headerAssemblyNanos;
+    private final long exclusionStrippingNanos;
+    private final long crawlerMatchingNanos;
+    private final long timestamp;
+
+    SlowUserAgent(String userAgent, DetectorMetrics.Operation operation, long headerAssemblyNanos,
+                  long exclusionStrippingNanos, long crawlerMatchingNanos, long timestamp) {
+        this.userAgent = userAgent;
+        this.operation = operation;
+        this.headerAssemblyNanos = headerAssemblyNanos;
+        this.exclusionStrippingNanos = exclusionStrippingNanos;
+        this.crawlerMatchingNanos = crawlerMatchingNanos;
+        this.totalNanos = headerAssemblyNanos + exclusionStrippingNanos + crawlerMatchingNanos;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Rebuilds an instance from the open data that JMX exports for it. This method is used by MXBean proxies of
+     * {@link DetectorMetricsMXBean}.
+     * @param data the composite data exported by JMX for a slow user agent
+     * @return an instance with the same values as the exported one
+     */
+    public static SlowUserAgent from(CompositeData data) {
+        return new SlowUserAgent(
+                (String) data.get("userAgent"), DetectorMetrics.Operation.valueOf((String) data.get("operation")),
+                (Long) data.get("headerAssemblyNanos"), (Long) data.get("exclusionStrippingNanos"),
+                (Long) data.get("crawlerMatchingNanos"), (Long) data.get("timestamp")
+        );
+    }
+
+    /**
+     * Returns the user agent string that was tested, before exclusions were stripped. For the headers-based methods
+     * this is the string assembled from the headers to check. Strings longer than
+     * {@link DetectorMetrics#MAX_USER_AGENT_LENGTH} characters are truncated.
+     * @return the user agent string that was tested
+     */
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    /**
+     * Returns the detection method that was called.
+     * @return the {@link DetectorMetrics.Operation} that was called
+     */
+    public DetectorMetrics.Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns the total time spent in the detection call.
+     * @return the sum of the timings of all phases, in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Returns the time spent assembling the user agent string from the request headers. Always {@code 0} for the
+     * methods that take the user agent string directly.
+     * @return the time spent in the {@link DetectorMetrics.Phase#HEADER_ASSEMBLY} phase, in nanoseconds
+     */
+    public long getHeaderAssemblyNanos() {
+        return headerAssemblyNanos;
+    }
+
+    /**
+     * Returns the time spent removing the user agent exclusions from the string.
+     * @return the time spent in the {@link DetectorMetrics.Phase#EXCLUSION_STRIPPING} phase, in nanoseconds
+     */
+    public long getExclusionStrippingNanos() {
+        return exclusionStrippingNanos;
+    }
+
+    /**
+     * Returns the time spent matching the string against the crawler patterns.
+     * @return the time spent in the {@link DetectorMetrics.Phase#CRAWLER_MATCHING} phase, in nanoseconds
+     */
+    public long getCrawlerMatchingNanos() {
+        return crawlerMatchingNanos;
+    }
+
+    /**
+     * Returns the wall-clock time at which the call was captured.
+     * @return the capture time, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowUserAgent{operation=" + operation + ", totalNanos=" + totalNanos + ", userAgent='" + userAgent + "'}";
+    }
+
+}
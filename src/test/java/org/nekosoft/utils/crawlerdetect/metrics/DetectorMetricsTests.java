@@ -0,0 +1,216 @@
+package org.nekosoft.utils.crawlerdetect.metrics;
+
+import org.junit.jupiter.api.Test;
+import org.nekosoft.utils.crawlerdetect.AbstractDataProvider;
+import org.nekosoft.utils.crawlerdetect.Detector;
+
+import javax.management.JMException;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DetectorMetricsTests {
+
+    private Detector newDetector() {
+        Detector detector = new Detector();
+        detector.setCrawlerPatterns(new AbstractDataProvider(List.of("bot", "spider")));
+        detector.setUaExclusions(new AbstractDataProvider(List.of("Safari\\.[\\d\\.]*")));
+        detector.setHeadersToCheck(new AbstractDataProvider(List.of("user-agent", "from")));
+        return detector;
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        Detector detector = newDetector();
+        assertNull(detector.getMetrics());
+        assertTrue(detector.isCrawler("Googlebot"));
+    }
+
+    @Test
+    public void testHeadersDelegateWhenDisabled() {
+        Detector detector = newOverridingDetector();
+        assertTrue(detector.isCrawler(Map.of("user-agent", "Safari")));
+        assertEquals("overridden", detector.getMatchingCrawler(Map.of("user-agent", "Safari")));
+    }
+
+    @Test
+    public void testHeadersDelegateWhenEnabled() {
+        Detector detector = newOverridingDetector();
+        DetectorMetrics metrics = new DetectorMetrics();
+        detector.setMetrics(metrics);
+        assertTrue(detector.isCrawler(Map.of("user-agent", "Safari")));
+        assertEquals("overridden", detector.getMatchingCrawler(Map.of("user-agent", "Safari")));
+        assertEquals(1, metrics.getOperationLatency(DetectorMetrics.Operation.IS_CRAWLER_HEADERS).getCount());
+        assertEquals(1, metrics.getOperationLatency(DetectorMetrics.Operation.GET_MATCHING_CRAWLER_HEADERS).getCount());
+        assertEquals(0, metrics.getOperationLatency(DetectorMetrics.Operation.IS_CRAWLER_USER_AGENT).getCount());
+    }
+
+    private Detector newOverridingDetector() {
+        Detector detector = new Detector() {
+            @Override
+            public boolean isCrawler(String userAgent) {
+                return true;
+            }
+            @Override
+            public String getMatchingCrawler(String userAgent) {
+                return "overridden";
+            }
+        };
+        detector.setCrawlerPatterns(new AbstractDataProvider(List.of("bot")));
+        detector.setHeadersToCheck(new AbstractDataProvider(List.of("user-agent")));
+        return detector;
+    }
+
+    @Test
+    public void testRecordsEachOperation() {
+        Detector detector = newDetector();
+        DetectorMetrics metrics = new DetectorMetrics();
+        detector.setMetrics(metrics);
+        assertTrue(detector.isCrawler(Map.of("user-agent", "Googlebot")));
+        assertFalse(detector.isCrawler("Safari"));
+        assertFalse(detector.isCrawler("Firefox"));
+        assertEquals("spider", detector.getMatchingCrawler(Map.of("from", "spider@example.com")));
+        assertNull(detector.getMatchingCrawler("Chrome"));
+
+        assertEquals(1, metrics.getOperationLatency(DetectorMetrics.Operation.IS_CRAWLER_HEADERS).getCount());
+        assertEquals(2, metrics.getOperationLatency(DetectorMetrics.Operation.IS_CRAWLER_USER_AGENT).getCount());
+        assertEquals(1, metrics.getOperationLatency(DetectorMetrics.Operation.GET_MATCHING_CRAWLER_HEADERS).getCount());
+        assertEquals(1, metrics.getOperationLatency(DetectorMetrics.Operation.GET_MATCHING_CRAWLER_USER_AGENT).getCount());
+        assertEquals(2, metrics.getPhaseLatency(DetectorMetrics.Phase.HEADER_ASSEMBLY).getCount());
+        assertEquals(5, metrics.getPhaseLatency(DetectorMetrics.Phase.EXCLUSION_STRIPPING).getCount());
+        assertEquals(5, metrics.getPhaseLatency(DetectorMetrics.Phase.CRAWLER_MATCHING).getCount());
+
+        detector.setMetrics(null);
+        detector.isCrawler("Googlebot");
+        assertEquals(2, metrics.getOperationLatency(DetectorMetrics.Operation.IS_CRAWLER_USER_AGENT).getCount());
+    }
+
+    @Test
+    public void testSlowestUserAgents() {
+        DetectorMetrics metrics = new DetectorMetrics(2);
+        metrics.record(DetectorMetrics.Operation.IS_CRAWLER_USER_AGENT, "fast", 0, 10, 10);
+        metrics.record(DetectorMetrics.Operation.IS_CRAWLER_HEADERS, "slowest", 100, 200, 300);
+        metrics.record(DetectorMetrics.Operation.IS_CRAWLER_USER_AGENT, "slow", 99, 100, 100);
+        metrics.record(DetectorMetrics.Operation.IS_CRAWLER_USER_AGENT, "faster", 0, 1, 1);
+
+        List<SlowUserAgent> slowest = metrics.getSlowestUserAgents();
+        assertEquals(2, slowest.size());
+        assertEquals("slowest", slowest.get(0).getUserAgent());
+        assertEquals(600, slowest.get(0).getTotalNanos());
+        assertEquals(100, slowest.get(0).getHeaderAssemblyNanos());
+        assertEquals(DetectorMetrics.Operation.IS_CRAWLER_HEADERS, slowest.get(0).getOperation());
+        assertEquals("slow", slowest.get(1).getUserAgent());
+        // header assembly is not part of the user agent methods
+        assertEquals(200, slowest.get(1).getTotalNanos());
+
+        metrics.reset();
+        assertTrue(metrics.getSlowestUserAgents().isEmpty());
+        assertEquals(0, metrics.getOperationLatency(DetectorMetrics.Operation.IS_CRAWLER_HEADERS).getCount());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencySnapshot snapshot = histogram.getSnapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMin());
+        assertEquals(1_000_000, snapshot.getMax());
+        assertEquals(500_500, snapshot.getMean(), 0.001);
+        assertEquals(500_000, snapshot.getP50(), 500_000 * 0.04);
+        assertEquals(990_000, snapshot.getP99(), 990_000 * 0.04);
+        assertTrue(snapshot.getP50() >= 500_000);
+        assertEquals(1_000_000, snapshot.getValueAtPercentile(100));
+        assertEquals(0, new LatencyHistogram().getSnapshot().getP99());
+        assertThrows(IllegalArgumentException.class, () -> snapshot.getValueAtPercentile(101));
+    }
+
+    @Test
+    public void testHistogramConcurrentSnapshots() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread recorder = new Thread(() -> {
+            long value = 1;
+            while (running.get()) {
+                // every reset makes the next recording a first one, which is when the race is most likely
+                histogram.reset();
+                histogram.record(value);
+                histogram.record(value * 7);
+                value = value % 1_000_000 + 13;
+            }
+        });
+        recorder.start();
+        try {
+            long deadline = System.nanoTime() + 500_000_000L;
+            while (System.nanoTime() < deadline) {
+                LatencySnapshot snapshot = histogram.getSnapshot();
+                if (snapshot.getCount() == 0) continue;
+                long p50 = snapshot.getP50();
+                assertTrue(snapshot.getMin() <= p50, snapshot::toString);
+                assertTrue(p50 <= snapshot.getMax(), snapshot::toString);
+                assertTrue(snapshot.getMax() > 0, snapshot::toString);
+            }
+        } finally {
+            running.set(false);
+            recorder.join();
+        }
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long value : new long[] { 0, 1, 63, 64, 65, 127, 128, 1_000_000, Long.MAX_VALUE / 3, Long.MAX_VALUE }) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.lowestValueAt(index) <= value);
+            assertTrue(LatencyHistogram.highestValueAt(index) >= value);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.highestValueAt(index - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testJmxRegistration() throws JMException {
+        DetectorMetrics metrics = new DetectorMetrics();
+        metrics.record(DetectorMetrics.Operation.IS_CRAWLER_USER_AGENT, "Googlebot", 0, 10, 20);
+        ObjectName name = metrics.registerMBean("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertTrue(server.isRegistered(name));
+            assertNotNull(server.getAttribute(name, "OperationLatencies"));
+            // enums are mapped to their names in open data
+            CompositeData[] slowest = (CompositeData[]) server.getAttribute(name, "SlowestUserAgents");
+            assertEquals("IS_CRAWLER_USER_AGENT", slowest[0].get("operation"));
+
+            DetectorMetricsMXBean proxy = JMX.newMXBeanProxy(server, name, DetectorMetricsMXBean.class);
+            List<SlowUserAgent> proxiedSlowest = proxy.getSlowestUserAgents();
+            assertEquals(1, proxiedSlowest.size());
+            assertEquals("Googlebot", proxiedSlowest.get(0).getUserAgent());
+            assertEquals(DetectorMetrics.Operation.IS_CRAWLER_USER_AGENT, proxiedSlowest.get(0).getOperation());
+            assertEquals(30, proxiedSlowest.get(0).getTotalNanos());
+            assertEquals(20, proxiedSlowest.get(0).getCrawlerMatchingNanos());
+            LatencySnapshot proxiedLatency = proxy.getOperationLatencies().get("IS_CRAWLER_USER_AGENT");
+            LatencySnapshot latency = metrics.getOperationLatency(DetectorMetrics.Operation.IS_CRAWLER_USER_AGENT);
+            assertEquals(1, proxiedLatency.getCount());
+            assertEquals(latency.getP50(), proxiedLatency.getP50());
+            assertEquals(latency.getP999(), proxiedLatency.getP999());
+            assertEquals(latency.getMax(), proxiedLatency.getMax());
+            assertThrows(UnsupportedOperationException.class, () -> proxiedLatency.getValueAtPercentile(75));
+            assertEquals(DetectorMetrics.Phase.values().length, proxy.getPhaseLatencies().size());
+            server.invoke(name, "reset", null, null);
+            assertTrue(metrics.getSlowestUserAgents().isEmpty());
+        } finally {
+            metrics.unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+}